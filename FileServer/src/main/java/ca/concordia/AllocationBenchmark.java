@@ -0,0 +1,65 @@
+package ca.concordia;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+// Measures heap allocated per operation on the buffer-reusing request path, after a warm-up so the JIT has settled.
+// Exits with status 1 when any operation allocates more than the limit, so it can guard against regressions:
+//   java -cp target/classes ca.concordia.AllocationBenchmark [iterations] [maxBytesPerOp]
+public class AllocationBenchmark {
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        long limit = (args.length > 1) ? Long.parseLong(args[1]) : 64;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation accounting is not supported by this JVM.");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        File volume = File.createTempFile("alloc-bench", ".dat");
+        volume.delete();
+        volume.deleteOnExit();
+        FileSystemManager fs = new FileSystemManager(volume.getPath(), 10 * 128);
+        fs.createFile("a");
+
+        byte[] content = new byte[600];
+        byte[] dst = new byte[Short.MAX_VALUE];
+        int[] version = new int[1];
+        String[] names = new String[fs.getMaxFiles()];
+        short[] sizes = new short[names.length];
+        short[] firstBlocks = new short[names.length];
+        int[] versions = new int[names.length];
+
+        String[] labels = { "WRITE", "READ", "READ IF-NOT (current)", "READ IF-NOT (stale)", "LIST" };
+        Op[] ops = {
+                () -> fs.writeFile("a", content, 0, content.length),
+                () -> fs.readFile("a", dst),
+                () -> fs.readFileIfModified("a", version[0], dst, version),
+                () -> fs.readFileIfModified("a", -1, dst, version),
+                () -> fs.listFiles(names, sizes, firstBlocks, versions),
+        };
+
+        boolean failed = false;
+        for (int i = 0; i < ops.length; i++) {
+            for (int n = 0; n < iterations; n++) ops[i].run();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int n = 0; n < iterations; n++) ops[i].run();
+            long perOp = (threads.getCurrentThreadAllocatedBytes() - before) / iterations;
+            System.out.printf("%-22s %6d bytes/op%n", labels[i], perOp);
+            failed |= perOp > limit;
+        }
+        if (failed) {
+            System.out.println("FAILED: an operation allocated more than " + limit + " bytes.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ca.concordia;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Compares writes and reads with compression off and on, for compressible text and for random bytes, reporting
+// the time and heap allocated per operation and the blocks the stored file occupies:
+//   java -cp target/classes ca.concordia.CompressionBenchmark [iterations]
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 50_000;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        File volume = File.createTempFile("compression-bench", ".dat");
+        volume.delete();
+        volume.deleteOnExit();
+        FileSystemManager fs = new FileSystemManager(volume.getPath(), 10 * 128);
+        fs.createFile("a");
+
+        // both payloads fill the whole volume when stored raw
+        byte[] text = new byte[1200];
+        byte[] line = "WRITE a the quick brown fox jumps over the lazy dog 0123456789\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < text.length; i++) text[i] = line[i % line.length];
+        byte[] random = new byte[1200];
+        new Random(42).nextBytes(random);
+        byte[] dst = new byte[Short.MAX_VALUE];
+
+        System.out.printf("%-7s %-12s %12s %12s %14s %13s %7s%n",
+                "content", "compression", "write ns/op", "read ns/op", "write bytes/op", "read bytes/op", "blocks");
+        String[] labels = { "text", "random" };
+        byte[][] payloads = { text, random };
+        for (int p = 0; p < payloads.length; p++) {
+            byte[] content = payloads[p];
+            for (boolean compression : new boolean[] { false, true }) {
+                fs.setCompressionEnabled(compression);
+                // warm-up, so both modes are measured with compiled code
+                for (int n = 0; n < iterations; n++) {
+                    fs.writeFile("a", content, 0, content.length);
+                    fs.readFile("a", dst);
+                }
+
+                long allocated = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int n = 0; n < iterations; n++) fs.writeFile("a", content, 0, content.length);
+                long writeNanos = System.nanoTime() - start;
+                allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+                long readAllocated = threads.getCurrentThreadAllocatedBytes();
+                start = System.nanoTime();
+                for (int n = 0; n < iterations; n++) fs.readFile("a", dst);
+                long readNanos = System.nanoTime() - start;
+                readAllocated = threads.getCurrentThreadAllocatedBytes() - readAllocated;
+
+                System.out.printf("%-7s %-12s %12d %12d %14d %13d %7d%n", labels[p], compression ? "on" : "off",
+                        writeNanos / iterations, readNanos / iterations, allocated / iterations,
+                        readAllocated / iterations, fs.getUsedBlocks());
+            }
+        }
+    }
+}
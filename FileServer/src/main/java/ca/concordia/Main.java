@@ -7,6 +7,12 @@ public class Main {
         System.out.printf("Hello and welcome! ");
 
         FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // -Dfs.compression=true stores deflated content when it saves blocks
+        server.getFileSystemManager().setCompressionEnabled(Boolean.getBoolean("fs.compression"));
+        // -Dfs.dedup=true shares blocks between files with identical content
+        server.getFileSystemManager().setDedupEnabled(Boolean.getBoolean("fs.dedup"));
+        // -Dfs.defrag.interval=<ms> relocates one fragmented file per interval in the background
+        server.getFileSystemManager().startCompactor(Long.getLong("fs.defrag.interval", 0L));
         // Start the file server
         server.start();
     }
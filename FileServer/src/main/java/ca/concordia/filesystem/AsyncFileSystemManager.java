@@ -0,0 +1,239 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.FileSystemException.ErrorCode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking front for FileSystemManager. Operations on different files run concurrently on a dedicated I/O
+// pool; operations on the same file run one after another in submission order. A write queued behind another
+// write that has not started yet replaces its content, so a burst of overwrites reaches the disk once. Written content
+// is copied on submit, so callers may reuse their buffers as soon as the call returns.
+// Futures fail with a FileSystemException carrying an ErrorCode. After close(), operations already queued still run
+// and new ones fail with IO_ERROR.
+public class AsyncFileSystemManager implements AutoCloseable {
+
+    private final FileSystemManager fsManager;
+    private final ExecutorService ioExecutor;
+    private final Map<String, FileQueue> queues = new HashMap<>(); // guarded by itself
+    private boolean closed; // guarded by queues
+
+    public AsyncFileSystemManager(FileSystemManager fsManager, int ioThreads) {
+        this.fsManager = fsManager;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread t = new Thread(r, "fs-io-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<Void> createFileAsync(String filename) {
+        return submit(filename, () -> {
+            fsManager.createFile(filename);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteFileAsync(String filename) {
+        return submit(filename, () -> {
+            fsManager.deleteFile(filename);
+            return null;
+        });
+    }
+
+    public CompletableFuture<byte[]> readFileAsync(String filename) {
+        return submit(filename, () -> fsManager.readFile(filename));
+    }
+
+    public CompletableFuture<Void> writeFileAsync(String filename, byte[] content) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        byte[] snapshot = content.clone(); // the write may run, or be merged into, long after this returns
+        synchronized (queues) {
+            if (closed) {
+                future.completeExceptionally(closedError());
+                return future;
+            }
+            FileQueue queue = queues.computeIfAbsent(filename, k -> new FileQueue());
+            Operation last = queue.pending.peekLast();
+            if (last instanceof WriteOperation write) {
+                // still waiting: the newer content wins, both callers complete with it
+                write.content = snapshot;
+                write.waiters.add(future);
+                return future;
+            }
+            WriteOperation write = new WriteOperation(filename, snapshot);
+            write.waiters.add(future);
+            enqueue(filename, queue, write);
+        }
+        return future;
+    }
+
+    public CompletableFuture<String[][]> listFilesAsync() {
+        try {
+            return CompletableFuture.supplyAsync(fsManager::listFiles, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(closedError());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (queues) {
+            closed = true;
+        }
+        ioExecutor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(String filename, Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (queues) {
+            FileQueue queue = queues.computeIfAbsent(filename, k -> new FileQueue());
+            enqueue(filename, queue, new TaskOperation<>(task, future));
+        }
+        return future;
+    }
+
+    // Caller holds the queues lock.
+    private void enqueue(String filename, FileQueue queue, Operation op) {
+        if (closed) {
+            op.fail(closedError());
+            if (!queue.running && queue.pending.isEmpty()) {
+                queues.remove(filename, queue);
+            }
+            return;
+        }
+        queue.pending.addLast(op);
+        if (!queue.running) {
+            queue.running = true;
+            try {
+                ioExecutor.execute(() -> drain(filename, queue));
+            } catch (RejectedExecutionException e) {
+                // nothing of this queue is running, so fail it whole rather than leave its futures pending
+                FileSystemException error = closedError();
+                for (Operation pending : queue.pending) {
+                    pending.fail(error);
+                }
+                queue.pending.clear();
+                queue.running = false;
+                queues.remove(filename, queue);
+            }
+        }
+    }
+
+    // Runs one operation, then hands the rest of the queue back to the pool so busy files cannot starve others.
+    // Once the pool is shut down the remaining operations of this file run here instead.
+    private void drain(String filename, FileQueue queue) {
+        while (true) {
+            Operation op;
+            synchronized (queues) {
+                op = queue.pending.pollFirst();
+            }
+            if (op != null) {
+                op.run();
+            }
+            synchronized (queues) {
+                if (queue.pending.isEmpty()) {
+                    queue.running = false;
+                    queues.remove(filename, queue);
+                    return;
+                }
+                try {
+                    ioExecutor.execute(() -> drain(filename, queue));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // closed while work was queued: keep draining on this thread
+                }
+            }
+        }
+    }
+
+    private static FileSystemException closedError() {
+        return new FileSystemException(ErrorCode.IO_ERROR, "File system manager is closed.");
+    }
+
+    private static FileSystemException typed(Exception e) {
+        if (e instanceof FileSystemException fse) {
+            return fse;
+        }
+        if (e instanceof IllegalArgumentException) {
+            return new FileSystemException(ErrorCode.INVALID_ARGUMENT, e.getMessage(), e);
+        }
+        return new FileSystemException(ErrorCode.IO_ERROR, e.getMessage(), e);
+    }
+
+    private interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private interface Operation {
+        void run();
+
+        void fail(FileSystemException error);
+    }
+
+    private static final class TaskOperation<T> implements Operation {
+        private final Task<T> task;
+        private final CompletableFuture<T> future;
+
+        TaskOperation(Task<T> task, CompletableFuture<T> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(task.run());
+            } catch (Exception e) {
+                future.completeExceptionally(typed(e));
+            }
+        }
+
+        @Override
+        public void fail(FileSystemException error) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    private static final class FileQueue {
+        private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+        private boolean running;
+    }
+
+    private final class WriteOperation implements Operation {
+        private final String filename;
+        private byte[] content; // replaced while queued, guarded by the queues lock
+        private final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+
+        WriteOperation(String filename, byte[] content) {
+            this.filename = filename;
+            this.content = content;
+        }
+
+        @Override
+        public void run() {
+            // polled from the queue already, so no caller can merge into it any more
+            try {
+                fsManager.writeFile(filename, content);
+                waiters.forEach(f -> f.complete(null));
+            } catch (Exception e) {
+                FileSystemException error = typed(e);
+                fail(error);
+            }
+        }
+
+        @Override
+        public void fail(FileSystemException error) {
+            waiters.forEach(f -> f.completeExceptionally(error));
+        }
+    }
+}
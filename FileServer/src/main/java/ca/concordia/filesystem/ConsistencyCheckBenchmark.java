@@ -0,0 +1,97 @@
+package ca.concordia.filesystem;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Runs ConsistencyChecker over a large synthetic volume with injected damage, once on the calling thread and once
+// split across the fork/join pool, and requires both to make the same repairs. The real volume is far below the
+// task sizes, so this is what exercises the parallel path:
+//   java -cp target/classes ca.concordia.filesystem.ConsistencyCheckBenchmark [files] [blocksPerFile] [rounds]
+public class ConsistencyCheckBenchmark {
+
+    public static void main(String[] args) {
+        int files = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+        int blocksPerFile = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        int blocks = files * blocksPerFile * 5 / 4; // a quarter of the volume stays free
+
+        Random random = new Random(7);
+        int[] heads = new int[files];
+        int[] lengths = new int[files];
+        int[] next = new int[blocks];
+        boolean[] free = new boolean[blocks];
+        Arrays.fill(next, -1);
+        Arrays.fill(free, true);
+
+        // each file gets a chain of 1..2*blocksPerFile blocks at shuffled positions
+        int[] order = new int[blocks];
+        for (int i = 0; i < blocks; i++) order[i] = i;
+        for (int i = blocks - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        int used = 0;
+        for (int f = 0; f < files; f++) {
+            int length = Math.min(1 + random.nextInt(2 * blocksPerFile), blocks - used);
+            lengths[f] = length;
+            heads[f] = (length == 0) ? -1 : order[used];
+            for (int i = 0; i < length; i++) {
+                int block = order[used + i];
+                free[block] = false;
+                next[block] = (i + 1 < length) ? order[used + i + 1] : -1;
+            }
+            used += length;
+        }
+
+        // damage: one in a hundred files each gets a cycle, a cross-link or a bad pointer; plus leaked and unmarked blocks
+        for (int f = 0; f < files; f += 100) {
+            int tail = heads[f];
+            while (tail != -1 && next[tail] != -1) tail = next[tail];
+            if (tail == -1) continue;
+            switch ((f / 100) % 3) {
+                case 0 -> next[tail] = heads[f];
+                case 1 -> next[tail] = heads[(f + 1) % files];
+                default -> next[tail] = blocks + 1;
+            }
+        }
+        for (int i = 0; i < blocks / 1000; i++) {
+            free[random.nextInt(blocks)] ^= true;
+        }
+
+        String sequential = null;
+        String parallel = null;
+        long sequentialNanos = 0;
+        long parallelNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            sequential = check(heads, lengths, next, free, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            sequentialNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            parallel = check(heads, lengths, next, free, ConsistencyChecker.FILES_PER_TASK, ConsistencyChecker.BLOCKS_PER_TASK);
+            parallelNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("%d files, %d blocks: sequential %.2f ms, parallel %.2f ms%n",
+                files, blocks, sequentialNanos / 1e6 / rounds, parallelNanos / 1e6 / rounds);
+        System.out.println("repairs: " + parallel.substring(0, parallel.indexOf(';')));
+        if (!sequential.equals(parallel)) {
+            System.out.println("FAILED: parallel and sequential checks repaired the volume differently.");
+            System.exit(1);
+        }
+    }
+
+    // Checks copies of the inputs and returns the counts followed by a digest of every repaired structure.
+    private static String check(int[] heads, int[] lengths, int[] next, boolean[] free, int filesPerTask, int blocksPerTask) {
+        int[] nextCopy = next.clone();
+        boolean[] freeCopy = free.clone();
+        ConsistencyChecker checker = new ConsistencyChecker(heads, lengths, nextCopy, freeCopy, filesPerTask, blocksPerTask);
+        checker.run();
+        int[] intact = new int[heads.length];
+        for (int i = 0; i < heads.length; i++) intact[i] = checker.intactBlocks(i);
+        return checker.brokenChains() + " broken chains, " + checker.crossLinks() + " cross-linked chains, "
+                + checker.leakedBlocks() + " leaked blocks, " + checker.unmarkedBlocks() + " in-use blocks marked free; "
+                + Arrays.hashCode(nextCopy) + " " + Arrays.hashCode(freeCopy) + " " + Arrays.hashCode(intact);
+    }
+}
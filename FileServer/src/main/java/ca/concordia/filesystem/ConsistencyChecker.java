@@ -0,0 +1,220 @@
+package ca.concordia.filesystem;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Checks the raw allocation metadata (chain pointers, free map, inode heads) and repairs it in place.
+// Chains are walked per file and the free map is reconciled per block range, both on the fork/join pool.
+class ConsistencyChecker {
+
+    static final int FILES_PER_TASK = 64;
+    static final int BLOCKS_PER_TASK = 4096;
+    private static final int SHORT_CHAIN = 64; // blocks of shorter chains are remembered in a small array, not a BitSet
+
+    private final int[] heads; // first block per inode, -1 if the slot is empty or the file has no blocks
+    private final int[] lengths; // blocks each inode's content needs; a chain is never legitimately longer
+    private final int[] next; // chain pointer per block, -1 at the end
+    private final boolean[] free; // free map, repaired in place
+    private final int filesPerTask;
+    private final int blocksPerTask;
+
+    private final AtomicIntegerArray reachable;
+    private final AtomicIntegerArray continues; // blocks some inode follows to their successor
+    private final int[] intactBlocks; // per inode: chain length once all cuts are applied
+    private final int[] cutAt; // per inode: block whose next pointer has to be cut, -1 if none
+    private final int[] overrunAt; // per inode: last needed block when the chain goes on past it, -1 if none
+
+    private int brokenChains;
+    private int crossLinks;
+    private int leakedBlocks;
+    // Blocks reachable from a file but marked free. A block reached from two chains is not an error by itself:
+    // with dedup, COPY and snapshots sharing is legitimate. Cross-links are found as chains running past their length.
+    private int unmarkedBlocks;
+
+    ConsistencyChecker(int[] heads, int[] lengths, int[] next, boolean[] free) {
+        this(heads, lengths, next, free, FILES_PER_TASK, BLOCKS_PER_TASK);
+    }
+
+    // Work below filesPerTask inodes or blocksPerTask blocks is done on the calling thread.
+    ConsistencyChecker(int[] heads, int[] lengths, int[] next, boolean[] free, int filesPerTask, int blocksPerTask) {
+        this.heads = heads;
+        this.lengths = lengths;
+        this.next = next;
+        this.free = free;
+        this.filesPerTask = filesPerTask;
+        this.blocksPerTask = blocksPerTask;
+        this.reachable = new AtomicIntegerArray(next.length);
+        this.continues = new AtomicIntegerArray(next.length);
+        this.intactBlocks = new int[heads.length];
+        this.cutAt = new int[heads.length];
+        this.overrunAt = new int[heads.length];
+    }
+
+    void run() {
+        // A cut made for one file can shorten another file's chain when the two are cross-linked, so walk again
+        // until a pass needs no cuts; the lengths and reachable blocks then describe the repaired chains.
+        int cuts;
+        do {
+            for (int b = 0; b < next.length; b++) {
+                reachable.set(b, 0);
+                continues.set(b, 0);
+            }
+            ChainWalk walk = new ChainWalk(0, heads.length);
+            if (heads.length <= filesPerTask) walk.compute(); else ForkJoinPool.commonPool().invoke(walk);
+            cuts = 0;
+            for (int i = 0; i < heads.length; i++) {
+                if (cutAt[i] != -1 && next[cutAt[i]] != -1) {
+                    next[cutAt[i]] = -1;
+                    brokenChains++;
+                    cuts++;
+                }
+                // a chain running into another file's blocks; left alone if some file still needs that link
+                int last = overrunAt[i];
+                if (last != -1 && next[last] != -1 && continues.get(last) == 0) {
+                    next[last] = -1;
+                    crossLinks++;
+                    cuts++;
+                }
+            }
+        } while (cuts > 0);
+        FreeMapRepair repair = new FreeMapRepair(0, next.length);
+        int[] counts = (next.length <= blocksPerTask) ? repair.compute() : ForkJoinPool.commonPool().invoke(repair);
+        leakedBlocks = counts[0];
+        unmarkedBlocks = counts[1];
+    }
+
+    int intactBlocks(int inode) {
+        return intactBlocks[inode];
+    }
+
+    int brokenChains() {
+        return brokenChains;
+    }
+
+    int crossLinks() {
+        return crossLinks;
+    }
+
+    int leakedBlocks() {
+        return leakedBlocks;
+    }
+
+    int unmarkedBlocks() {
+        return unmarkedBlocks;
+    }
+
+    boolean repaired() {
+        return brokenChains + crossLinks + leakedBlocks + unmarkedBlocks > 0;
+    }
+
+    private void walk(int inode) {
+        cutAt[inode] = -1;
+        overrunAt[inode] = -1;
+        intactBlocks[inode] = 0;
+        int current = heads[inode];
+        if (current < 0 || current >= next.length) {
+            return;
+        }
+        int[] path = new int[SHORT_CHAIN];
+        int pathLength = 0;
+        BitSet seen = null; // sized by the highest block index, so only taken for long chains
+        int count = 0;
+        int previous = -1;
+        while (current != -1) {
+            if (current < 0 || current >= next.length || visited(current, path, pathLength, seen)) {
+                // pointer out of range or back into this chain: end the chain at the previous block
+                cutAt[inode] = previous;
+                break;
+            }
+            if (seen != null) {
+                seen.set(current);
+            } else if (pathLength < SHORT_CHAIN) {
+                path[pathLength++] = current;
+            } else {
+                seen = new BitSet();
+                for (int b : path) seen.set(b);
+                seen.set(current);
+            }
+            if (count < lengths[inode]) {
+                reachable.set(current, 1);
+                count++;
+                if (count < lengths[inode]) continues.set(current, 1);
+            } else if (overrunAt[inode] == -1) {
+                // past the content: only followed further to find cycles the cut must break
+                overrunAt[inode] = previous;
+            }
+            previous = current;
+            current = next[current];
+        }
+        intactBlocks[inode] = count;
+    }
+
+    private static boolean visited(int block, int[] path, int pathLength, BitSet seen) {
+        if (seen != null) return seen.get(block);
+        for (int i = 0; i < pathLength; i++) {
+            if (path[i] == block) return true;
+        }
+        return false;
+    }
+
+    private final class ChainWalk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ChainWalk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= filesPerTask) {
+                for (int i = from; i < to; i++) walk(i);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChainWalk(from, mid), new ChainWalk(mid, to));
+        }
+    }
+
+    // Marks unreachable blocks free (leaked) and reachable ones allocated (unmarked); returns both counts.
+    private final class FreeMapRepair extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        FreeMapRepair(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= blocksPerTask) {
+                int[] counts = new int[2];
+                for (int b = from; b < to; b++) {
+                    boolean used = reachable.get(b) != 0;
+                    if (!used && !free[b]) counts[0]++;
+                    if (used && free[b]) counts[1]++;
+                    free[b] = !used;
+                    if (!used) next[b] = -1;
+                }
+                return counts;
+            }
+            int mid = (from + to) >>> 1;
+            FreeMapRepair left = new FreeMapRepair(from, mid);
+            left.fork();
+            int[] right = new FreeMapRepair(mid, to).compute();
+            int[] counts = left.join();
+            counts[0] += right[0];
+            counts[1] += right[1];
+            return counts;
+        }
+    }
+}
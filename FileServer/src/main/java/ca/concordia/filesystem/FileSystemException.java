@@ -0,0 +1,33 @@
+package ca.concordia.filesystem;
+
+// Failure of a file system operation; the code tells callers what went wrong without parsing the message.
+public class FileSystemException extends Exception {
+
+    public enum ErrorCode {
+        NOT_FOUND,
+        ALREADY_EXISTS,
+        TOO_MANY_FILES,
+        NO_SPACE,
+        INVALID_ARGUMENT,
+        CORRUPTED,
+        IO_ERROR
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorCode code;
+
+    public FileSystemException(ErrorCode code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public FileSystemException(ErrorCode code, String message, Throwable cause) {
+        super(message, cause);
+        this.code = code;
+    }
+
+    public ErrorCode getCode() {
+        return code;
+    }
+}
@@ -1,13 +1,32 @@
 package ca.concordia.filesystem;
 
 import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.datastructures.FileContent;
+import ca.concordia.filesystem.FileSystemException.ErrorCode;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 //import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -17,21 +36,51 @@ public class FileSystemManager {
 
     private final long dataAreaSize; // size reserved for block data (from constructor totalSize)
     private final int METADATA_MAGIC = 0x46535953; // 'FSYS'
-    private final int METADATA_VERSION = 1;
+    private final int METADATA_VERSION = 4;
     private final int FILENAME_BYTES = 11;
-    private final int INODE_RECORD_BYTES = FILENAME_BYTES + 2 + 2; // filename + short filesize + short firstBlock
+    private final int INODE_RECORD_BYTES = FILENAME_BYTES + 2 + 2 + 2 + 1 + 4; // filename + short filesize + short firstBlock + short storedSize + flags + int version
+    private final int FLAG_COMPRESSED = 0x01;
     private final int MAXFILES = 5;
     private final int MAXBLOCKS = 10;
+    private final int MAXSNAPSHOTS = 4;
+    private final int SNAPSHOT_RECORD_BYTES = FILENAME_BYTES + MAXFILES * INODE_RECORD_BYTES; // name + frozen inode table
     private static FileSystemManager instance = null; // initially null, set in constructor
     private final RandomAccessFile disk; // initialized in constructor
     //private final ReentrantLock globalLock = new ReentrantLock();
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final FNode[] blockTable;
 
+    public static final int NO_VERSION = -1; // never a file version: readFileIfModified with it always reads
+
     private static final int BLOCK_SIZE = 128; // Example block size
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+    // one direct buffer per I/O thread; positional channel I/O never moves the shared file pointer
+    private static final ThreadLocal<ByteBuffer> IO_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BLOCK_SIZE));
 
     private final FEntry[] inodeTable; // Array of inodes
     private boolean[] freeBlockList; // Bitmap for free blocks
+    private volatile boolean compressionEnabled = false; // deflate new writes when it saves blocks
+    private final int[] refCount; // references to each block: inode heads + next pointers of other blocks
+    private final String[] blockFingerprint; // fingerprint index key currently held by each block, or null
+    private final Map<String, Integer> fingerprintIndex = new HashMap<>(); // content+successor hash -> block
+    private volatile boolean dedupEnabled = false; // share blocks with identical content and successor
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>(); // copy-on-write, persisted with the metadata
+    private final String startupReport; // metadata load and consistency check timings
+    private ScheduledExecutorService compactor; // background defragmentation, null when not running
+    private int compactCursor = 0; // next inode slot the compactor looks at
+    private long relocatedFiles = 0; // files moved into contiguous runs so far
+    private int generation = 0; // last version handed out; only grows, so a recreated file never repeats one
+
+    // Scratch state reused by every mutation; all of it is only touched under the write lock.
+    private final FNode[] nodePool; // the one FNode each block index ever uses
+    private final int[] releasedBlocks;
+    private final boolean[] releasedMask;
+    private final int[] plannedBlocks;
+    private final int[] targetBlocks;
+    private final boolean[] needsWrite;
+    private final AllocationSnapshot rollback;
+    private final ByteBuffer metadataBuffer; // wraps one array for the life of the volume
+    private MessageDigest digest; // created on first dedup write
 
     public FileSystemManager(String filename, int totalSize) {
         // Initialize the file system manager with a file
@@ -48,7 +97,9 @@ public class FileSystemManager {
                 this.disk = new RandomAccessFile(f, "rw");
 
                 this.dataAreaSize = totalSize;
-                int metadataSize = 4 + 4 + (MAXFILES * INODE_RECORD_BYTES) + (MAXBLOCKS * 1) + (MAXBLOCKS * 4); // magic + ver + inodes + freeBitmap + block nexts
+                // magic + ver + generation + inodes + freeBitmap + block nexts + snapshot slots
+                int metadataSize = 4 + 4 + 4 + (MAXFILES * INODE_RECORD_BYTES) + (MAXBLOCKS * 1) + (MAXBLOCKS * 4)
+                        + (MAXSNAPSHOTS * SNAPSHOT_RECORD_BYTES);
                 long minLen = this.dataAreaSize + metadataSize;
                 if (this.disk.length() < minLen) {
                     this.disk.setLength(minLen);
@@ -58,16 +109,38 @@ public class FileSystemManager {
                 this.inodeTable = new FEntry[MAXFILES];
                 this.freeBlockList = new boolean[MAXBLOCKS];
                 this.blockTable = new FNode[MAXBLOCKS];
+                this.refCount = new int[MAXBLOCKS];
+                this.blockFingerprint = new String[MAXBLOCKS];
+                this.nodePool = new FNode[MAXBLOCKS];
+                for (int i = 0; i < MAXBLOCKS; i++) {
+                    nodePool[i] = new FNode(i);
+                }
+                this.releasedBlocks = new int[MAXBLOCKS];
+                this.releasedMask = new boolean[MAXBLOCKS];
+                this.plannedBlocks = new int[MAXBLOCKS];
+                this.targetBlocks = new int[MAXBLOCKS];
+                this.needsWrite = new boolean[MAXBLOCKS];
+                this.rollback = new AllocationSnapshot();
+                this.metadataBuffer = ByteBuffer.wrap(new byte[metadataSize]);
                 for (int i = 0; i < MAXBLOCKS; i++) {
                     freeBlockList[i] = true; // all blocks free initially
                     blockTable[i] = null;
                 }
 
+                int[] next = new int[MAXBLOCKS];
+                Arrays.fill(next, -1);
+                Map<String, FEntry[]> savedSnapshots = new HashMap<>();
+                long loadStart = System.nanoTime();
                 try {
-                    loadMetaData();
+                    loadMetaData(next, savedSnapshots);
                 } catch (IOException ignored) {
                     // No existing metadata or corrupt -> keep defaults and persist later when metaData() is called.
                 }
+                long checkStart = System.nanoTime();
+                String checkSummary = checkConsistency(next, savedSnapshots);
+                long checkEnd = System.nanoTime();
+                this.startupReport = String.format("Metadata loaded in %.2f ms; consistency check (%s) in %.2f ms",
+                        (checkStart - loadStart) / 1e6, checkSummary, (checkEnd - checkStart) / 1e6);
 
                 // Mark singleton instance
                 instance = this;
@@ -80,6 +153,26 @@ public class FileSystemManager {
 
     }
 
+    public String getStartupReport() {
+        return startupReport;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setDedupEnabled(boolean dedupEnabled) {
+        this.dedupEnabled = dedupEnabled;
+    }
+
+    public boolean isDedupEnabled() {
+        return dedupEnabled;
+    }
+
     public void createFile(String fileName) throws Exception {
 
         if (fileName == null || fileName.isEmpty()) {
@@ -88,10 +181,8 @@ public class FileSystemManager {
 
         rwLock.writeLock().lock();
         try {
-            for (FEntry entry : inodeTable) {
-                if (entry != null && entry.getFilename().equals(fileName)) {
-                    throw new Exception("File with that name already exists.");
-                }
+            if (findEntry(fileName) != -1) {
+                throw new FileSystemException(ErrorCode.ALREADY_EXISTS, "File with that name already exists.");
             }
 
 
@@ -104,7 +195,7 @@ public class FileSystemManager {
         }
 
         if (freeIndex == -1) {
-            throw new Exception("File system full. Maximum number of " + MAXFILES + " reached. Delete a file before creating a new one.");
+            throw new FileSystemException(ErrorCode.TOO_MANY_FILES, "File system full. Maximum number of " + MAXFILES + " reached. Delete a file before creating a new one.");
         }
 
         int blockIndex = -1;
@@ -117,13 +208,15 @@ public class FileSystemManager {
         }
 
         if (blockIndex == -1) {
-            throw new Exception("No free space available to create new file. Delete some files to free up space.");
+            throw new FileSystemException(ErrorCode.NO_SPACE, "No free space available to create new file. Delete some files to free up space.");
         }
 
-        blockTable[blockIndex] = new FNode(blockIndex);
-        blockTable[blockIndex].setNext(-1);
+        linkNode(blockIndex, -1);
+        refCount[blockIndex] = 1;
+        forgetFingerprint(blockIndex);
 
         inodeTable[freeIndex] = new FEntry(fileName, (short) 0, (short) blockIndex);
+        inodeTable[freeIndex].setVersion(++generation);
 
         metaData();
         } finally {
@@ -144,13 +237,14 @@ public class FileSystemManager {
             if (length == 0) {
                 return new String[0][];
             }
-            String[][] files = new String[length][3];
+            String[][] files = new String[length][4];
             int index = 0;
             for (int i = 0; i < inodeTable.length; i++) {
                 if (inodeTable[i] != null) {
                     files[index][0] = inodeTable[i].getFilename();
                     files[index][1] = Short.toString(inodeTable[i].getFilesize());
                     files[index][2] = Short.toString(inodeTable[i].getFirstBlock());
+                    files[index][3] = Integer.toString(inodeTable[i].getVersion());
                     index++;
                 }
             }
@@ -160,6 +254,41 @@ public class FileSystemManager {
         }
     }
 
+    // Fills the caller's arrays with one row per file and returns the file count; sized by getMaxFiles().
+    public int listFiles(String[] names, short[] sizes, short[] firstBlocks, int[] versions) {
+        rwLock.readLock().lock();
+        try {
+            int index = 0;
+            for (FEntry entry : inodeTable) {
+                if (entry != null) {
+                    names[index] = entry.getFilename();
+                    sizes[index] = entry.getFilesize();
+                    firstBlocks[index] = entry.getFirstBlock();
+                    versions[index] = entry.getVersion();
+                    index++;
+                }
+            }
+            return index;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    public int getMaxFiles() {
+        return MAXFILES;
+    }
+
+    public int getUsedBlocks() {
+        rwLock.readLock().lock();
+        try {
+            int used = 0;
+            for (boolean free : freeBlockList) if (!free) used++;
+            return used;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
     public void deleteFile(String filename) throws Exception {
         if (filename == null || filename.isEmpty()) {
             throw new IllegalArgumentException("Filename cannot be empty.");
@@ -167,45 +296,16 @@ public class FileSystemManager {
 
         rwLock.writeLock().lock();
         try {
-            int inodeIndex = -1;
-            for (int i = 0; i < inodeTable.length; i++) {
-                FEntry e = inodeTable[i];
-                if (e != null && e.getFilename().equals(filename)) {
-                    inodeIndex = i;
-                    break;
-                }
-            }
-
+            int inodeIndex = findEntry(filename);
             if (inodeIndex == -1) {
-                throw new Exception("ERROR: File " + filename + " not found.");
+                throw new FileSystemException(ErrorCode.NOT_FOUND, "ERROR: File " + filename + " not found.");
             }
 
             FEntry entry = inodeTable[inodeIndex];
             short firstBlock = entry.getFirstBlock();
 
-            if (firstBlock >= 0 && firstBlock < MAXBLOCKS) {
-                synchronized (disk) {
-                    byte[] zeros = new byte[BLOCK_SIZE];
-                    int current = firstBlock;
-                    while (current != -1) {
-                        if (current < 0 || current >= MAXBLOCKS) {
-                            break;
-                        }
-                        FNode node = blockTable[current];
-                        int next = (node == null) ? -1 : node.getNext();
-
-                        long offset = (long) current * BLOCK_SIZE;
-                        disk.seek(offset);
-                        disk.write(zeros);
-
-                        freeBlockList[current] = true;
-                        blockTable[current] = null;
-
-                        current = next;
-                    }
-                    disk.getFD().sync();
-                }
-            }
+            // only blocks no other file still references are freed and zeroed
+            zeroBlocks(releasedBlocks, releaseChain(firstBlock, releasedBlocks, 0));
 
             inodeTable[inodeIndex] = null;
             metaData();
@@ -215,159 +315,420 @@ public class FileSystemManager {
     }
 
     public void writeFile(String filename, byte[] content) throws Exception {
+        writeFile(filename, content, 0, content.length);
+    }
+
+    // Writes content[off, off + len) as the new file content; the array is not kept.
+    public void writeFile(String filename, byte[] content, int off, int len) throws Exception {
 
         if (filename == null || filename.isEmpty()) {
             throw new IllegalArgumentException("Make sure to enter a valid filename.");
         }
 
         rwLock.writeLock().lock();
-        boolean[] oldFree = null;
-        FNode[] oldBlockTable = null;
-        short oldFileSize = 0;
-        short oldFirstBlock = 0;
-        int inodeIndex = -1;
         try {
-            for (int i=0; i<inodeTable.length; i++) {
-                if (inodeTable[i] != null && inodeTable[i].getFilename().equals(filename)) {
-                    inodeIndex = i;
-                    break;
-                }
-            }
+            int inodeIndex = findEntry(filename);
             if (inodeIndex == -1) {
-                throw new Exception("File not found. Verify the filename and try again.");
+                throw new FileSystemException(ErrorCode.NOT_FOUND, "File not found. Verify the filename and try again.");
             }
 
             FEntry entry = inodeTable[inodeIndex];
+            if (len > Short.MAX_VALUE) {
+                // the inode stores the logical size as a short, even when compression would make it fit on disk
+                throw new FileSystemException(ErrorCode.INVALID_ARGUMENT, "File too large: " + len + " bytes, maximum is " + Short.MAX_VALUE + ".");
+            }
 
-            java.util.List<Integer> currentBlocks = new java.util.ArrayList<>();
-            short first = entry.getFirstBlock();
-            if (first >= 0 && first < MAXBLOCKS) {
-                int cur = first;
-                while (cur != -1) {
-                    currentBlocks.add(cur);
-                    FNode node = blockTable[cur];
-                    if (node == null) break;
-                    cur = node.getNext();
+            // Compressed content is only kept when it actually needs fewer blocks; otherwise store raw.
+            byte[] stored = content;
+            int storedOff = off;
+            int storedLen = len;
+            boolean compressed = false;
+            if (compressionEnabled && len > 0) {
+                byte[] deflated = compress(content, off, len);
+                if (deflated != null && blocksFor(deflated.length) < blocksFor(len)) {
+                    stored = deflated;
+                    storedOff = 0;
+                    storedLen = deflated.length;
+                    compressed = true;
                 }
             }
 
-            int requiredBlocks = (content.length == 0) ? 0 : ((content.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            int requiredBlocks = blocksFor(storedLen);
+
+            // snapshot metadata for rollback
+            rollback.capture();
+            short oldFileSize = entry.getFilesize();
+            short oldFirstBlock = entry.getFirstBlock();
+            short oldStoredSize = entry.getStoredSize();
+            boolean oldCompressed = entry.isCompressed();
+            int oldVersion = entry.getVersion();
+
+            // drop this file's reference to its chain; blocks nobody else shares become free again
+            int releasedCount = releaseChain(oldFirstBlock, releasedBlocks, 0);
+            Arrays.fill(releasedMask, false);
+            for (int i = 0; i < releasedCount; i++) releasedMask[releasedBlocks[i]] = true;
+
+            Arrays.fill(needsWrite, false);
+            try {
+                if (requiredBlocks > MAXBLOCKS) {
+                    // larger than the volume: fail before the per-block scratch arrays are indexed
+                    throw noSpace(requiredBlocks, releasedCount);
+                }
 
-            // count available free blocks (excluding blocks already used by this file)
-            java.util.List<Integer> availableFree = new java.util.ArrayList<>();
-            for (int i = 0; i < freeBlockList.length; i++) {
-                if (freeBlockList[i]) availableFree.add(i);
+                // plan target blocks: reuse released blocks first, then allocate from free list
+                int candidate = 0;
+                for (int i = 0; i < requiredBlocks; i++) {
+                    if (i < releasedCount) {
+                        plannedBlocks[i] = releasedBlocks[i];
+                        continue;
+                    }
+                    while (candidate < MAXBLOCKS && (!freeBlockList[candidate] || releasedMask[candidate])) candidate++;
+                    plannedBlocks[i] = (candidate < MAXBLOCKS) ? candidate++ : -1;
+                }
+
+                // link the chain from the tail so each block's fingerprint can include its successor
+                int next = -1;
+                for (int i = requiredBlocks - 1; i >= 0; i--) {
+                    int blockOff = storedOff + i * BLOCK_SIZE;
+                    int blockLen = Math.min(BLOCK_SIZE, storedLen - i * BLOCK_SIZE);
+                    String key = dedupEnabled ? fingerprint(stored, blockOff, blockLen, next) : null;
+                    Integer hit = (key == null) ? null : fingerprintIndex.get(key);
+                    int block;
+                    if (hit != null) {
+                        block = hit;
+                        if (freeBlockList[block]) {
+                            // released earlier but its content is still on disk: take it back
+                            freeBlockList[block] = false;
+                            linkNode(block, next);
+                        } else if (next != -1) {
+                            // the shared block already references next
+                            refCount[next]--;
+                        }
+                    } else {
+                        block = plannedBlocks[i];
+                        if (block == -1 || !freeBlockList[block]) {
+                            block = firstFreeBlock();
+                        }
+                        if (block == -1) {
+                            throw noSpace(requiredBlocks, releasedCount);
+                        }
+                        freeBlockList[block] = false;
+                        linkNode(block, next);
+                        forgetFingerprint(block);
+                        if (key != null) {
+                            blockFingerprint[block] = key;
+                            fingerprintIndex.put(key, block);
+                        }
+                        needsWrite[i] = true;
+                    }
+                    refCount[block]++;
+                    targetBlocks[i] = block;
+                    next = block;
+                }
+            } catch (Exception planEx) {
+                rollback.restore();
+                throw planEx;
             }
 
-            int availableTotal = availableFree.size() + currentBlocks.size();
-            if (requiredBlocks > availableTotal) {
-                throw new Exception("Not enough free space: need " + requiredBlocks + " blocks, available " + availableTotal);
+            try {
+                // update inode metadata
+                short newFirstBlock = (requiredBlocks == 0) ? (short) -1 : (short) targetBlocks[0];
+                entry.setFilesize((short) len);
+                entry.setFirstBlock(newFirstBlock);
+                entry.setStoredSize((short) storedLen);
+                entry.setCompressed(compressed);
+                entry.setVersion(++generation);
+
+                // write data to disk block-by-block; deduplicated blocks are already there
+                for (int i = 0; i < requiredBlocks; i++) {
+                    if (!needsWrite[i]) continue;
+                    writeBlock(targetBlocks[i], stored, storedOff + i * BLOCK_SIZE, Math.min(BLOCK_SIZE, storedLen - i * BLOCK_SIZE));
+                }
+                // persist metadata
+                metaData();
+            } catch (Exception ioEx) {
+                // rollback metadata on write failure
+                rollback.restore();
+                for (int i = 0; i < requiredBlocks; i++) {
+                    // these blocks may hold partial new data now
+                    if (needsWrite[i]) forgetFingerprint(targetBlocks[i]);
+                }
+                entry.setFilesize(oldFileSize);
+                entry.setFirstBlock(oldFirstBlock);
+                entry.setStoredSize(oldStoredSize);
+                entry.setCompressed(oldCompressed);
+                entry.setVersion(oldVersion);
+                throw new FileSystemException(ErrorCode.IO_ERROR, "Failed to write file data: " + ioEx.getMessage(), ioEx);
             }
 
-            // plan target blocks: reuse current blocks first, then allocate from free list
-            java.util.List<Integer> targetBlocks = new java.util.ArrayList<>();
-            int toReuse = Math.min(currentBlocks.size(), requiredBlocks);
-            for (int i = 0; i < toReuse; i++) targetBlocks.add(currentBlocks.get(i));
-            int needMore = requiredBlocks - targetBlocks.size();
-            for (int i = 0; i < needMore; i++) {
-                targetBlocks.add(availableFree.get(i));
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    // Counts what the failed write could have used: blocks free before it started plus the ones it released.
+    private FileSystemException noSpace(int requiredBlocks, int releasedCount) {
+        int available = releasedCount;
+        for (boolean free : rollback.free) if (free) available++;
+        return new FileSystemException(ErrorCode.NO_SPACE, "Not enough free space: need " + requiredBlocks + " blocks, available " + available);
+    }
+
+    // Starts relocating fragmented files into contiguous runs, one file per interval so foreground work keeps priority.
+    public synchronized void startCompactor(long intervalMillis) {
+        if (compactor != null || intervalMillis <= 0) return;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fs-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compactNextFile(false);
+            } catch (Exception e) {
+                System.err.println("Compactor error: " + e.getMessage());
             }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
 
-            // snapshot metadata for rollback
-            oldFree = Arrays.copyOf(freeBlockList, freeBlockList.length);
-            oldBlockTable = new FNode[blockTable.length];
-            for (int i = 0; i < blockTable.length; i++) {
-                FNode n = blockTable[i];
-                if (n != null) {
-                    FNode copy = new FNode(i);
-                    copy.setNext(n.getNext());
-                    oldBlockTable[i] = copy;
-                } else {
-                    oldBlockTable[i] = null;
+    public synchronized void stopCompactor() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+    }
+
+    // Runs compaction steps until every file has been visited once; returns how many files were relocated.
+    public int compactAll() throws Exception {
+        int moved = 0;
+        for (int i = 0; i < MAXFILES; i++) {
+            if (compactNextFile(true)) moved++;
+        }
+        return moved;
+    }
+
+    // Looks at the next inode slot and relocates that file if it is fragmented. The background compactor only
+    // tries the lock, so it skips a turn rather than queue in front of clients.
+    public boolean compactNextFile(boolean wait) throws Exception {
+        if (wait) {
+            rwLock.writeLock().lock();
+        } else if (!rwLock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            int inodeIndex = compactCursor;
+            compactCursor = (compactCursor + 1) % MAXFILES;
+            return inodeTable[inodeIndex] != null && compactFile(inodeTable[inodeIndex]);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    public String fragmentationReport() {
+        rwLock.readLock().lock();
+        try {
+            int files = 0;
+            int fragmented = 0;
+            int extents = 0;
+            for (FEntry e : inodeTable) {
+                if (e == null) continue;
+                files++;
+                int fileExtents = extentsOf(chainOf(e));
+                extents += fileExtents;
+                if (fileExtents > 1) fragmented++;
+            }
+            int freeRuns = 0;
+            int largestFreeRun = 0;
+            int run = 0;
+            for (int i = 0; i <= MAXBLOCKS; i++) {
+                if (i < MAXBLOCKS && freeBlockList[i]) {
+                    run++;
+                } else if (run > 0) {
+                    freeRuns++;
+                    largestFreeRun = Math.max(largestFreeRun, run);
+                    run = 0;
                 }
             }
-            oldFileSize = entry.getFilesize();
-            oldFirstBlock = entry.getFirstBlock();
+            return "Files: " + files + ", Fragmented: " + fragmented + ", Extents: " + extents
+                    + ", Free Runs: " + freeRuns + ", Largest Free Run: " + largestFreeRun
+                    + ", Relocated: " + relocatedFiles;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
 
-            // Apply metadata changes:
-            // free blocks not needed
-            for (int b : currentBlocks) {
-                if (!targetBlocks.contains(b)) {
-                    freeBlockList[b] = true;
-                    blockTable[b] = null;
+    public void copyFile(String source, String target) throws Exception {
+        if (source == null || source.isEmpty() || target == null || target.isEmpty()) {
+            throw new IllegalArgumentException("Source and target file names cannot be empty.");
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            FEntry src = null;
+            int freeIndex = -1;
+            for (int i = 0; i < inodeTable.length; i++) {
+                FEntry e = inodeTable[i];
+                if (e == null) {
+                    if (freeIndex == -1) freeIndex = i;
+                } else if (e.getFilename().equals(target)) {
+                    throw new FileSystemException(ErrorCode.ALREADY_EXISTS, "File with that name already exists.");
+                } else if (e.getFilename().equals(source)) {
+                    src = e;
                 }
             }
-            // allocate new blocks
-            for (int b : targetBlocks) {
-                if (!currentBlocks.contains(b)) {
-                    freeBlockList[b] = false;
-                    blockTable[b] = new FNode(b);
-                }
+            if (src == null) {
+                throw new FileSystemException(ErrorCode.NOT_FOUND, "File not found: " + source);
             }
-            // link the chain
-            for (int i = 0; i < targetBlocks.size(); i++) {
-                int idx = targetBlocks.get(i);
-                FNode node = blockTable[idx];
-                if (node == null) {
-                    node = new FNode(idx);
-                    blockTable[idx] = node;
-                }
-                if (i + 1 < targetBlocks.size()) {
-                    node.setNext(targetBlocks.get(i + 1));
-                } else {
-                    node.setNext(-1);
-                }
+            if (freeIndex == -1) {
+                throw new FileSystemException(ErrorCode.TOO_MANY_FILES, "File system full. Maximum number of " + MAXFILES + " reached. Delete a file before creating a new one.");
             }
 
-            // update inode metadata
-            short newFirstBlock = targetBlocks.isEmpty() ? (short) -1 : (short) (int) targetBlocks.get(0);
-            entry.setFilesize((short) content.length);
-            entry.setFirstBlock(newFirstBlock);
-
-            // write data to disk block-by-block
+            // the copy shares the source chain; whichever file is written next gets fresh blocks
+            inodeTable[freeIndex] = new FEntry(target, src.getFilesize(), src.getFirstBlock(), src.getStoredSize(), src.isCompressed());
+            inodeTable[freeIndex].setVersion(++generation);
+            short head = src.getFirstBlock();
+            if (head >= 0 && head < MAXBLOCKS) {
+                refCount[head]++;
+            }
             try {
-                int bytesWritten = 0;
-                for (int i = 0; i < targetBlocks.size(); i++) {
-                    int blockIdx = targetBlocks.get(i);
-                    long offset = (long) blockIdx * BLOCK_SIZE;
-                    disk.seek(offset);
-                    int remaining = content.length - bytesWritten;
-                    int toWrite = Math.min(remaining, BLOCK_SIZE);
-                    if (toWrite > 0) {
-                        disk.write(content, bytesWritten, toWrite);
-                        bytesWritten += toWrite;
-                        if (toWrite < BLOCK_SIZE) {
-                            // zero the rest of the block
-                            byte[] zeros = new byte[BLOCK_SIZE - toWrite];
-                            disk.write(zeros);
-                        }
-                    } else {
-                        // content ended; zero full block
-                        byte[] zeros = new byte[BLOCK_SIZE];
-                        disk.write(zeros);
-                    }
+                metaData();
+            } catch (IOException ioEx) {
+                inodeTable[freeIndex] = null;
+                if (head >= 0 && head < MAXBLOCKS) refCount[head]--;
+                throw new FileSystemException(ErrorCode.IO_ERROR, "Failed to copy file: " + ioEx.getMessage(), ioEx);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    public void createSnapshot(String name) throws Exception {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Snapshot name cannot be empty.");
+        }
+        if (name.length() > FILENAME_BYTES) {
+            throw new IllegalArgumentException("Snapshot name cannot be longer than " + FILENAME_BYTES + " characters.");
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            if (snapshots.containsKey(name)) {
+                throw new FileSystemException(ErrorCode.ALREADY_EXISTS, "Snapshot with that name already exists.");
+            }
+            if (snapshots.size() >= MAXSNAPSHOTS) {
+                throw new FileSystemException(ErrorCode.NO_SPACE, "Maximum number of " + MAXSNAPSHOTS + " snapshots reached. Delete a snapshot before creating a new one.");
+            }
+            FEntry[] entries = new FEntry[MAXFILES];
+            int[][] chains = new int[MAXFILES][];
+            for (int i = 0; i < MAXFILES; i++) {
+                FEntry e = inodeTable[i];
+                if (e == null) continue;
+                entries[i] = new FEntry(e.getFilename(), e.getFilesize(), e.getFirstBlock(), e.getStoredSize(), e.isCompressed());
+                entries[i].setVersion(e.getVersion());
+                chains[i] = chainOf(e);
+                if (e.getFirstBlock() >= 0 && e.getFirstBlock() < MAXBLOCKS) {
+                    refCount[e.getFirstBlock()]++;
                 }
-                // persist metadata
+            }
+            snapshots.put(name, new Snapshot(entries, chains));
+            try {
                 metaData();
-            } catch (Exception ioEx) {
-                // rollback metadata on write failure
-                freeBlockList = oldFree;
-                for (int i = 0; i < blockTable.length; i++) {
-                    FNode old = oldBlockTable[i];
-                    if (old == null) {
-                        blockTable[i] = null;
-                    } else {
-                        blockTable[i] = new FNode(i);
-                        blockTable[i].setNext(old.getNext());
-                    }
+            } catch (IOException ioEx) {
+                snapshots.remove(name);
+                for (FEntry e : entries) {
+                    if (e != null && e.getFirstBlock() >= 0 && e.getFirstBlock() < MAXBLOCKS) refCount[e.getFirstBlock()]--;
                 }
-                inodeTable[inodeIndex].setFilesize(oldFileSize);
-                inodeTable[inodeIndex].setFirstBlock(oldFirstBlock);
-                throw new Exception("Failed to write file data: " + ioEx.getMessage(), ioEx);
+                throw new FileSystemException(ErrorCode.IO_ERROR, "Failed to create snapshot: " + ioEx.getMessage(), ioEx);
             }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    public void deleteSnapshot(String name) throws Exception {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            throw new FileSystemException(ErrorCode.NOT_FOUND, "Snapshot not found: " + name);
+        }
 
+        // wait for in-flight snapshot reads before its blocks can be freed
+        snapshot.lock.writeLock().lock();
+        rwLock.writeLock().lock();
+        try {
+            if (snapshots.remove(name) == null) {
+                throw new FileSystemException(ErrorCode.NOT_FOUND, "Snapshot not found: " + name);
+            }
+            int freed = 0;
+            for (FEntry e : snapshot.entries) {
+                if (e != null) freed = releaseChain(e.getFirstBlock(), releasedBlocks, freed);
+            }
+            zeroBlocks(releasedBlocks, freed);
+            metaData();
         } finally {
             rwLock.writeLock().unlock();
+            snapshot.lock.writeLock().unlock();
+        }
+    }
+
+    public String[] listSnapshots() {
+        return snapshots.keySet().stream().sorted().toArray(String[]::new);
+    }
+
+    public String[][] listSnapshotFiles(String name) throws Exception {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            throw new FileSystemException(ErrorCode.NOT_FOUND, "Snapshot not found: " + name);
+        }
+        List<String[]> files = new ArrayList<>();
+        for (FEntry e : snapshot.entries) {
+            if (e != null) {
+                files.add(new String[]{e.getFilename(), Short.toString(e.getFilesize()), Short.toString(e.getFirstBlock()),
+                        Integer.toString(e.getVersion())});
+            }
+        }
+        return files.toArray(new String[0][]);
+    }
+
+    // Snapshot blocks are never rewritten while referenced, so this only takes the snapshot's own lock, not rwLock.
+    public byte[] readSnapshotFile(String name, String filename) throws Exception {
+        if (filename == null || filename.isEmpty()) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            throw new FileSystemException(ErrorCode.NOT_FOUND, "Snapshot not found: " + name);
+        }
+
+        snapshot.lock.readLock().lock();
+        try {
+            if (!snapshots.containsKey(name)) {
+                throw new FileSystemException(ErrorCode.NOT_FOUND, "Snapshot not found: " + name);
+            }
+            for (int i = 0; i < snapshot.entries.length; i++) {
+                FEntry entry = snapshot.entries[i];
+                if (entry == null || !entry.getFilename().equals(filename)) continue;
+
+                short storedSize = entry.getStoredSize();
+                byte[] result = new byte[storedSize];
+                int bytesRead = 0;
+                for (int block : snapshot.chains[i]) {
+                    if (bytesRead >= storedSize) break;
+                    int toRead = Math.min(storedSize - bytesRead, BLOCK_SIZE);
+                    readBlock(block, result, bytesRead, toRead);
+                    bytesRead += toRead;
+                }
+                if (bytesRead != storedSize) {
+                    throw new FileSystemException(ErrorCode.CORRUPTED, "File corrupted: expected " + storedSize + " bytes, read " + bytesRead);
+                }
+                if (!entry.isCompressed()) {
+                    return result;
+                }
+                byte[] content = new byte[entry.getFilesize()];
+                decompress(result, storedSize, content, content.length);
+                return content;
+            }
+            throw new FileSystemException(ErrorCode.NOT_FOUND, "File not found: " + filename);
+        } finally {
+            snapshot.lock.readLock().unlock();
         }
     }
 
@@ -378,63 +739,490 @@ public class FileSystemManager {
 
         rwLock.readLock().lock();
         try {
-            // Find the file in inode table
-            FEntry entry = null;
-            for (FEntry e : inodeTable) {
-                if (e != null && e.getFilename().equals(filename)) {
-                    entry = e;
-                    break;
-                }
+            FEntry entry = requireFile(filename);
+            byte[] result = new byte[entry.getFilesize()];
+            readInto(entry, result);
+            return result;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    // Reads the file into dst, which must hold the whole file, and returns its size; lets callers reuse one buffer.
+    public int readFile(String filename, byte[] dst) throws Exception {
+        if (filename == null || filename.isEmpty()) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+
+        rwLock.readLock().lock();
+        try {
+            return readInto(requireFile(filename), dst);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    // Conditional read: when knownVersion is still the file's version, answers from the inode without reading blocks.
+    public FileContent readFileIfModified(String filename, int knownVersion) throws Exception {
+        if (filename == null || filename.isEmpty()) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+
+        rwLock.readLock().lock();
+        try {
+            FEntry entry = requireFile(filename);
+            if (entry.getVersion() == knownVersion) {
+                return new FileContent(entry.getVersion(), null);
             }
+            byte[] result = new byte[entry.getFilesize()];
+            readInto(entry, result);
+            return new FileContent(entry.getVersion(), result);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
 
-            if (entry == null) {
-                throw new Exception("File not found: " + filename);
+    // Conditional read into the caller's buffer: returns the file size, or -1 when knownVersion is still current.
+    // version[0] receives the file's version either way.
+    public int readFileIfModified(String filename, int knownVersion, byte[] dst, int[] version) throws Exception {
+        if (filename == null || filename.isEmpty()) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+
+        rwLock.readLock().lock();
+        try {
+            FEntry entry = requireFile(filename);
+            version[0] = entry.getVersion();
+            if (entry.getVersion() == knownVersion) {
+                return -1;
+            }
+            return readInto(entry, dst);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    // Inode slot holding filename, or -1. Caller holds rwLock.
+    private int findEntry(String filename) {
+        for (int i = 0; i < inodeTable.length; i++) {
+            FEntry e = inodeTable[i];
+            if (e != null && e.getFilename().equals(filename)) {
+                return i;
             }
+        }
+        return -1;
+    }
 
-            short filesize = entry.getFilesize();
+    private FEntry requireFile(String filename) throws FileSystemException {
+        int index = findEntry(filename);
+        if (index == -1) {
+            throw new FileSystemException(ErrorCode.NOT_FOUND, "File not found: " + filename);
+        }
+        return inodeTable[index];
+    }
+
+    // Reads the whole file into the front of dst and returns its size. Caller holds rwLock.
+    private int readInto(FEntry entry, byte[] dst) throws Exception {
+        if (dst.length < entry.getFilesize()) {
+            throw new FileSystemException(ErrorCode.INVALID_ARGUMENT, "Buffer too small: file is " + entry.getFilesize() + " bytes.");
+        }
+        if (entry.getFilesize() > 0) {
+            readContent(entry, dst);
+        }
+        return entry.getFilesize();
+    }
+
+    // Reads the logical content of a non-empty file into dst. Caller holds rwLock.
+    private void readContent(FEntry entry, byte[] dst) throws Exception {
+        if (!entry.isCompressed()) {
+            readStored(entry, dst);
+            return;
+        }
+        byte[] stored = new byte[entry.getStoredSize()];
+        readStored(entry, stored);
+        decompress(stored, stored.length, dst, entry.getFilesize());
+    }
+
+    // Reads the bytes held by the block chain of entry, as stored (still compressed if it is). Caller holds rwLock.
+    private void readStored(FEntry entry, byte[] result) throws Exception {
+        short firstBlock = entry.getFirstBlock();
+        if (firstBlock < 0 || firstBlock >= MAXBLOCKS) {
+            throw new FileSystemException(ErrorCode.CORRUPTED, "Invalid first block for file: " + entry.getFilename());
+        }
 
-            // Handle empty file
-            if (filesize == 0) {
-                return new byte[0];
+        // Read data by following the block chain
+        short storedSize = entry.getStoredSize();
+        int bytesRead = 0;
+        int currentBlockId = firstBlock;
+
+        while (currentBlockId != -1 && bytesRead < storedSize) {
+            // Read block from disk
+            int remaining = storedSize - bytesRead;
+            int toRead = Math.min(remaining, BLOCK_SIZE);
+
+            readBlock(currentBlockId, result, bytesRead, toRead);
+            bytesRead += toRead;
+
+            // Move to next block
+            FNode node = blockTable[currentBlockId];
+            if (node == null) {
+                break;
             }
+            currentBlockId = node.getNext();
+        }
 
-            short firstBlock = entry.getFirstBlock();
-            if (firstBlock < 0 || firstBlock >= MAXBLOCKS) {
-                throw new Exception("Invalid first block for file: " + filename);
+        if (bytesRead != storedSize) {
+            throw new FileSystemException(ErrorCode.CORRUPTED, "File corrupted: expected " + storedSize + " bytes, read " + bytesRead);
+        }
+    }
+
+    // Moves the chain of entry into the lowest free run that holds it. Shared chains are left alone since moving
+    // them would split the sharing. Caller holds the write lock.
+    private boolean compactFile(FEntry entry) throws Exception {
+        int[] chain = chainOf(entry);
+        if (extentsOf(chain) <= 1) {
+            return false;
+        }
+        int current = entry.getFirstBlock();
+        while (current >= 0 && current < MAXBLOCKS && blockTable[current] != null) {
+            if (refCount[current] != 1) return false;
+            current = blockTable[current].getNext();
+        }
+
+        int start = -1;
+        int run = 0;
+        for (int i = 0; i < MAXBLOCKS && start == -1; i++) {
+            run = freeBlockList[i] ? run + 1 : 0;
+            if (run == chain.length) start = i - run + 1;
+        }
+        if (start == -1) {
+            return false;
+        }
+
+        byte[] stored = new byte[entry.getStoredSize()];
+        readStored(entry, stored);
+        rollback.capture();
+        short oldFirstBlock = entry.getFirstBlock();
+        try {
+            // write the copy first; the file only switches over once its data is in place
+            for (int i = 0; i < chain.length; i++) {
+                int block = start + i;
+                int off = i * BLOCK_SIZE;
+                int toWrite = Math.min(BLOCK_SIZE, stored.length - off);
+                writeBlock(block, stored, off, toWrite);
+                freeBlockList[block] = false;
+                linkNode(block, i + 1 < chain.length ? block + 1 : -1);
+                refCount[block] = 1;
+                forgetFingerprint(block);
+                if (dedupEnabled) {
+                    String key = fingerprint(stored, off, toWrite, blockTable[block].getNext());
+                    if (!fingerprintIndex.containsKey(key)) {
+                        blockFingerprint[block] = key;
+                        fingerprintIndex.put(key, block);
+                    }
+                }
+            }
+            entry.setFirstBlock((short) start);
+            releaseChain(oldFirstBlock, releasedBlocks, 0);
+            metaData();
+        } catch (Exception ioEx) {
+            rollback.restore();
+            for (int i = 0; i < chain.length; i++) forgetFingerprint(start + i);
+            entry.setFirstBlock(oldFirstBlock);
+            throw new FileSystemException(ErrorCode.IO_ERROR, "Failed to relocate file: " + ioEx.getMessage(), ioEx);
+        }
+        relocatedFiles++;
+        return true;
+    }
+
+    // Number of contiguous runs the chain is split into.
+    private int extentsOf(int[] chain) {
+        int extents = (chain.length == 0) ? 0 : 1;
+        for (int i = 1; i < chain.length; i++) {
+            if (chain[i] != chain[i - 1] + 1) extents++;
+        }
+        return extents;
+    }
+
+    // Drops one reference to head and frees every block whose count reaches zero, following the chain.
+    // Freed blocks are appended to freed from index count on; returns the new count.
+    // Freed blocks keep their fingerprint: their content stays valid on disk until they are rewritten.
+    private int releaseChain(int head, int[] freed, int count) {
+        int current = head;
+        while (current >= 0 && current < MAXBLOCKS && !freeBlockList[current]) {
+            if (--refCount[current] > 0) {
+                break;
             }
+            refCount[current] = 0;
+            FNode node = blockTable[current];
+            int next = (node == null) ? -1 : node.getNext();
+            freeBlockList[current] = true;
+            blockTable[current] = null;
+            freed[count++] = current;
+            current = next;
+        }
+        return count;
+    }
 
-            // Read data by following the block chain
-            byte[] result = new byte[filesize];
-            int bytesRead = 0;
-            int currentBlockId = firstBlock;
+    private void zeroBlocks(int[] blocks, int count) throws IOException {
+        if (count == 0) return;
+        synchronized (disk) {
+            for (int i = 0; i < count; i++) {
+                writeBlock(blocks[i], ZERO_BLOCK, 0, BLOCK_SIZE);
+                forgetFingerprint(blocks[i]);
+            }
+            disk.getFD().sync();
+        }
+    }
 
-            while (currentBlockId != -1 && bytesRead < filesize) {
-                // Read block from disk
-                long offset = (long) currentBlockId * BLOCK_SIZE;
-                disk.seek(offset);
+    private void linkNode(int block, int next) {
+        FNode node = nodePool[block];
+        node.setNext(next);
+        blockTable[block] = node;
+    }
 
-                int remaining = filesize - bytesRead;
-                int toRead = Math.min(remaining, BLOCK_SIZE);
+    // Writes len bytes of src into block, zero-filling the rest of the block.
+    private void writeBlock(int block, byte[] src, int off, int len) throws IOException {
+        ByteBuffer buf = IO_BUFFER.get();
+        buf.clear();
+        buf.put(src, off, len);
+        buf.put(ZERO_BLOCK, 0, BLOCK_SIZE - len);
+        buf.flip();
+        FileChannel channel = disk.getChannel();
+        long position = (long) block * BLOCK_SIZE;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private void readBlock(int block, byte[] dst, int off, int len) throws IOException {
+        ByteBuffer buf = IO_BUFFER.get();
+        buf.clear().limit(len);
+        FileChannel channel = disk.getChannel();
+        long position = (long) block * BLOCK_SIZE;
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of disk at block " + block);
+            }
+        }
+        buf.flip();
+        buf.get(dst, off, len);
+    }
 
-                disk.readFully(result, bytesRead, toRead);
-                bytesRead += toRead;
+    // Block indices holding the stored bytes of entry, in order.
+    private int[] chainOf(FEntry entry) {
+        int[] chain = new int[blocksFor(entry.getStoredSize())];
+        int count = 0;
+        int current = entry.getFirstBlock();
+        while (count < chain.length && current >= 0 && current < MAXBLOCKS && blockTable[current] != null) {
+            chain[count++] = current;
+            current = blockTable[current].getNext();
+        }
+        return (count == chain.length) ? chain : Arrays.copyOf(chain, count);
+    }
+
+    private int firstFreeBlock() {
+        for (int i = 0; i < freeBlockList.length; i++) {
+            if (freeBlockList[i]) return i;
+        }
+        return -1;
+    }
 
-                // Move to next block
-                FNode node = blockTable[currentBlockId];
-                if (node == null) {
-                    break;
+    private void forgetFingerprint(int block) {
+        String key = blockFingerprint[block];
+        if (key != null) {
+            fingerprintIndex.remove(key, block);
+            blockFingerprint[block] = null;
+        }
+    }
+
+    // A block is identified by its bytes and its successor, so a shared block always continues into the same chain.
+    private String fingerprint(byte[] data, int off, int len, int next) throws NoSuchAlgorithmException {
+        if (digest == null) {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        digest.update(data, off, len);
+        digest.update((byte) (next >>> 24));
+        digest.update((byte) (next >>> 16));
+        digest.update((byte) (next >>> 8));
+        digest.update((byte) next);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Reference counts are not persisted; they follow from the inode and snapshot heads and the block chains.
+    private void rebuildRefCounts() {
+        Arrays.fill(refCount, 0);
+        for (FEntry e : inodeTable) {
+            if (e != null && e.getFirstBlock() >= 0 && e.getFirstBlock() < MAXBLOCKS) {
+                refCount[e.getFirstBlock()]++;
+            }
+        }
+        for (Snapshot snapshot : snapshots.values()) {
+            for (FEntry e : snapshot.entries) {
+                if (e != null && e.getFirstBlock() >= 0 && e.getFirstBlock() < MAXBLOCKS) {
+                    refCount[e.getFirstBlock()]++;
                 }
-                currentBlockId = node.getNext();
             }
+        }
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            FNode node = blockTable[i];
+            if (node != null && !freeBlockList[i] && node.getNext() >= 0 && node.getNext() < MAXBLOCKS) {
+                refCount[node.getNext()]++;
+            }
+        }
+    }
 
-            if (bytesRead != filesize) {
-                throw new Exception("File corrupted: expected " + filesize + " bytes, read " + bytesRead);
+    // Verifies the loaded chains and free map, repairs them, then builds blockTable, the saved snapshots and the
+    // reference counts. Snapshot entries pin blocks just like inodes, so they are checked alongside them.
+    private String checkConsistency(int[] next, Map<String, FEntry[]> savedSnapshots) throws IOException {
+        FEntry[] owners = new FEntry[MAXFILES * (1 + savedSnapshots.size())];
+        System.arraycopy(inodeTable, 0, owners, 0, MAXFILES);
+        int ownerCount = MAXFILES;
+        for (FEntry[] entries : savedSnapshots.values()) {
+            System.arraycopy(entries, 0, owners, ownerCount, MAXFILES);
+            ownerCount += MAXFILES;
+        }
+        int[] heads = new int[owners.length];
+        int[] lengths = new int[owners.length];
+        for (int i = 0; i < owners.length; i++) {
+            FEntry e = owners[i];
+            heads[i] = (e == null) ? -1 : e.getFirstBlock();
+            // an empty file created by createFile still owns its first block
+            lengths[i] = (e == null) ? 0 : Math.max(blocksFor(e.getStoredSize()), heads[i] >= 0 ? 1 : 0);
+        }
+        ConsistencyChecker checker = new ConsistencyChecker(heads, lengths, next, freeBlockList);
+        checker.run();
+
+        // files whose chain is shorter than their content keep only what is still intact
+        int damagedFiles = 0;
+        for (int i = 0; i < owners.length; i++) {
+            FEntry e = owners[i];
+            if (e == null) continue;
+            if (e.getFirstBlock() < -1 || e.getFirstBlock() >= MAXBLOCKS) {
+                e.setFirstBlock((short) -1);
+            }
+            int intactBytes = checker.intactBlocks(i) * BLOCK_SIZE;
+            if (e.getStoredSize() > intactBytes) {
+                short keep = e.isCompressed() ? 0 : (short) Math.min(e.getFilesize(), intactBytes);
+                e.setFilesize(keep);
+                e.setStoredSize(keep);
+                e.setCompressed(false);
+                e.setVersion(++generation);
+                damagedFiles++;
             }
+        }
 
-            return result;
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            if (freeBlockList[i]) {
+                blockTable[i] = null;
+            } else {
+                linkNode(i, next[i]);
+            }
+        }
+        for (Map.Entry<String, FEntry[]> saved : savedSnapshots.entrySet()) {
+            FEntry[] entries = saved.getValue();
+            int[][] chains = new int[MAXFILES][];
+            for (int i = 0; i < MAXFILES; i++) {
+                if (entries[i] != null) chains[i] = chainOf(entries[i]);
+            }
+            snapshots.put(saved.getKey(), new Snapshot(entries, chains));
+        }
+        rebuildRefCounts();
+
+        if (checker.repaired() || damagedFiles > 0) {
+            metaData();
+        }
+        return checker.brokenChains() + " broken chains, " + checker.crossLinks() + " cross-linked chains, "
+                + checker.leakedBlocks() + " leaked blocks, "
+                + checker.unmarkedBlocks() + " in-use blocks marked free, " + damagedFiles + " truncated files";
+    }
+
+    // Frozen inode table of a snapshot plus the block chains it pins.
+    private static final class Snapshot {
+        private final FEntry[] entries;
+        private final int[][] chains;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Snapshot(FEntry[] entries, int[][] chains) {
+            this.entries = entries;
+            this.chains = chains;
+        }
+    }
+
+    // Copy of the allocation metadata taken before a write so it can be rolled back. One instance is reused
+    // by every mutation under the write lock.
+    private final class AllocationSnapshot {
+        private final boolean[] free = new boolean[MAXBLOCKS];
+        private final int[] next = new int[MAXBLOCKS];
+        private final int[] refs = new int[MAXBLOCKS];
+        private final String[] fingerprints = new String[MAXBLOCKS];
+
+        void capture() {
+            System.arraycopy(freeBlockList, 0, free, 0, free.length);
+            System.arraycopy(refCount, 0, refs, 0, refs.length);
+            System.arraycopy(blockFingerprint, 0, fingerprints, 0, fingerprints.length);
+            for (int i = 0; i < MAXBLOCKS; i++) {
+                next[i] = (blockTable[i] == null) ? Integer.MIN_VALUE : blockTable[i].getNext();
+            }
+        }
+
+        void restore() {
+            System.arraycopy(free, 0, freeBlockList, 0, free.length);
+            System.arraycopy(refs, 0, refCount, 0, refs.length);
+            System.arraycopy(fingerprints, 0, blockFingerprint, 0, fingerprints.length);
+            for (int i = 0; i < MAXBLOCKS; i++) {
+                if (next[i] == Integer.MIN_VALUE) {
+                    blockTable[i] = null;
+                } else {
+                    linkNode(i, next[i]);
+                }
+            }
+            fingerprintIndex.clear();
+            for (int i = 0; i < MAXBLOCKS; i++) {
+                if (blockFingerprint[i] != null) fingerprintIndex.put(blockFingerprint[i], i);
+            }
+        }
+    }
+
+    private int blocksFor(int bytes) {
+        return (bytes == 0) ? 0 : ((bytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
 
+    // Returns the deflated form of content[off, off + len), or null if it does not come out smaller.
+    private byte[] compress(byte[] content, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(content, off, len);
+            deflater.finish();
+            byte[] buf = new byte[len];
+            int deflated = 0;
+            while (!deflater.finished() && deflated < buf.length) {
+                deflated += deflater.deflate(buf, deflated, buf.length - deflated);
+            }
+            return deflater.finished() ? Arrays.copyOf(buf, deflated) : null;
         } finally {
-            rwLock.readLock().unlock();
+            deflater.end();
+        }
+    }
+
+    // Inflates stored[0, storedLen) into the first filesize bytes of result, which may be a larger caller buffer.
+    private void decompress(byte[] stored, int storedLen, byte[] result, int filesize) throws Exception {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, 0, storedLen);
+            int len = 0;
+            while (!inflater.finished() && len < filesize) {
+                int n = inflater.inflate(result, len, filesize - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                len += n;
+            }
+            if (!inflater.finished() || len != filesize) {
+                throw new FileSystemException(ErrorCode.CORRUPTED, "File corrupted: expected " + filesize + " bytes, inflated " + len);
+            }
+        } catch (DataFormatException e) {
+            throw new FileSystemException(ErrorCode.CORRUPTED, "File corrupted: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
         }
     }
 
@@ -448,75 +1236,150 @@ public class FileSystemManager {
         return b;
     }
 
+    // Encodes the whole metadata region into metadataBuffer and writes it with a single call.
     private void metaData() throws IOException {
         synchronized (disk) {
-            disk.seek(dataAreaSize);
-            disk.writeInt(METADATA_MAGIC);
-            disk.writeInt(METADATA_VERSION);
+            ByteBuffer buf = metadataBuffer;
+            buf.clear();
+            buf.putInt(METADATA_MAGIC);
+            buf.putInt(METADATA_VERSION);
+            buf.putInt(generation);
             // write inode table (fixed-size records)
             for (int i = 0; i < MAXFILES; i++) {
-                FEntry e = inodeTable[i];
-                if (e != null) {
-                    disk.write(fixedBytes(e.getFilename(), FILENAME_BYTES));
-                    disk.writeShort(e.getFilesize());
-                    disk.writeShort(e.getFirstBlock());
-                } else {
-                    disk.write(new byte[INODE_RECORD_BYTES]);
-                }
+                putEntry(buf, inodeTable[i]);
             }
             // write free block list as bytes (0/1)
             for (int i = 0; i < MAXBLOCKS; i++) {
-                disk.writeByte(freeBlockList[i] ? 1 : 0);
+                buf.put((byte) (freeBlockList[i] ? 1 : 0));
             }
             // write blockTable next pointers (-1 if null)
             for (int i = 0; i < MAXBLOCKS; i++) {
                 FNode node = blockTable[i];
                 int next = (node == null) ? -1 : node.getNext();
-                disk.writeInt(next);
+                buf.putInt(next);
             }
+            // snapshot slots: name, then the frozen inode table; an all-zero name marks an empty slot
+            int slots = 0;
+            for (Map.Entry<String, Snapshot> snapshot : snapshots.entrySet()) {
+                putName(buf, snapshot.getKey());
+                for (FEntry e : snapshot.getValue().entries) {
+                    putEntry(buf, e);
+                }
+                slots++;
+            }
+            for (; slots < MAXSNAPSHOTS; slots++) {
+                putName(buf, "");
+                for (int i = 0; i < MAXFILES; i++) {
+                    putEntry(buf, null);
+                }
+            }
+            disk.seek(dataAreaSize);
+            disk.write(buf.array(), 0, buf.position());
             disk.getFD().sync();
         }
     }
 
-    private void loadMetaData() throws IOException {
+    private void putEntry(ByteBuffer buf, FEntry e) {
+        if (e == null) {
+            buf.put(ZERO_BLOCK, 0, INODE_RECORD_BYTES);
+            return;
+        }
+        putName(buf, e.getFilename());
+        buf.putShort(e.getFilesize());
+        buf.putShort(e.getFirstBlock());
+        buf.putShort(e.getStoredSize());
+        buf.put((byte) (e.isCompressed() ? FLAG_COMPRESSED : 0));
+        buf.putInt(e.getVersion());
+    }
+
+    // Writes the name as a zero-padded FILENAME_BYTES field; ASCII names are copied without encoding.
+    private void putName(ByteBuffer buf, String name) {
+        int start = buf.position();
+        int len = Math.min(name.length(), FILENAME_BYTES);
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                buf.position(start);
+                buf.put(fixedBytes(name, FILENAME_BYTES));
+                return;
+            }
+            buf.put((byte) c);
+        }
+        buf.put(ZERO_BLOCK, 0, FILENAME_BYTES - len);
+    }
+
+    // Reads the whole metadata region in one call and decodes it; next pointers go into next, not blockTable, and
+    // saved snapshot tables into snapshotEntries until their chains can be resolved.
+    private void loadMetaData(int[] next, Map<String, FEntry[]> snapshotEntries) throws IOException {
+        byte[] raw;
+        int version;
         synchronized (disk) {
             if (disk.length() < dataAreaSize + 8) return; // no metadata
             disk.seek(dataAreaSize);
             int magic = disk.readInt();
-            int version = disk.readInt();
-            if (magic != METADATA_MAGIC || version != METADATA_VERSION) {
+            version = disk.readInt();
+            if (magic != METADATA_MAGIC || version < 1 || version > METADATA_VERSION) {
                 // incompatible or no metadata, skip loading
                 return;
             }
-            // read inodes
-            for (int i = 0; i < MAXFILES; i++) {
-                byte[] nameBytes = new byte[FILENAME_BYTES];
-                disk.readFully(nameBytes);
-                String name = new String(nameBytes, java.nio.charset.StandardCharsets.UTF_8).trim();
-                short filesize = disk.readShort();
-                short firstBlock = disk.readShort();
-                if (!name.isEmpty()) {
-                    inodeTable[i] = new FEntry(name, filesize, firstBlock);
-                } else {
-                    inodeTable[i] = null;
-                }
-            }
-            // free list
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                int b = disk.readByte();
-                freeBlockList[i] = (b != 0);
-            }
-            // blockTable next pointers
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                int next = disk.readInt();
-                if (next == -1 && freeBlockList[i]) {
-                    blockTable[i] = null;
-                } else {
-                    // ensure node exists and set next
-                    if (blockTable[i] == null) blockTable[i] = new FNode(i);
-                    blockTable[i].setNext(next);
+            // version 1 records carry no stored size or flags (content is raw); versions before 3 carry no write generation
+            generation = (version >= 3) ? disk.readInt() : 0;
+            int recordBytes = (version >= 3) ? INODE_RECORD_BYTES : (version == 2) ? FILENAME_BYTES + 2 + 2 + 2 + 1 : FILENAME_BYTES + 2 + 2;
+            // versions before 4 carry no snapshot slots
+            int snapshotBytes = (version >= 4) ? MAXSNAPSHOTS * SNAPSHOT_RECORD_BYTES : 0;
+            raw = new byte[MAXFILES * recordBytes + MAXBLOCKS + MAXBLOCKS * 4 + snapshotBytes];
+            disk.readFully(raw);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        // read inodes
+        for (int i = 0; i < MAXFILES; i++) {
+            inodeTable[i] = readEntry(buf, version);
+        }
+        // free list
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            freeBlockList[i] = (buf.get() != 0);
+        }
+        // block next pointers
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            next[i] = buf.getInt();
+        }
+        // snapshot slots
+        if (version >= 4) {
+            for (int s = 0; s < MAXSNAPSHOTS; s++) {
+                String name = readName(buf);
+                FEntry[] entries = new FEntry[MAXFILES];
+                for (int i = 0; i < MAXFILES; i++) {
+                    entries[i] = readEntry(buf, version);
                 }
+                if (!name.isEmpty()) snapshotEntries.put(name, entries);
             }
         }
     }
-}
\ No newline at end of file
+
+    // Decodes one inode record in the given metadata version; null for an empty slot.
+    private FEntry readEntry(ByteBuffer buf, int version) {
+        String name = readName(buf);
+        short filesize = buf.getShort();
+        short firstBlock = buf.getShort();
+        short storedSize = filesize;
+        int flags = 0;
+        if (version >= 2) {
+            storedSize = buf.getShort();
+            flags = buf.get();
+        }
+        int fileVersion = (version >= 3) ? buf.getInt() : 0;
+        if (name.isEmpty()) return null;
+        FEntry entry = new FEntry(name, filesize, firstBlock, storedSize, (flags & FLAG_COMPRESSED) != 0);
+        entry.setVersion(fileVersion);
+        return entry;
+    }
+
+    private String readName(ByteBuffer buf) {
+        byte[] raw = buf.array();
+        int nameStart = buf.position();
+        int nameEnd = nameStart;
+        while (nameEnd < nameStart + FILENAME_BYTES && raw[nameEnd] != 0) nameEnd++;
+        buf.position(nameStart + FILENAME_BYTES);
+        return new String(raw, nameStart, nameEnd - nameStart, java.nio.charset.StandardCharsets.UTF_8).trim();
+    }
+}
@@ -7,8 +7,15 @@ public class FEntry {
     private String filename;
     private short filesize;
     private short firstBlock; // Pointers to data blocks
+    private short storedSize; // bytes actually occupying the block chain
+    private boolean compressed; // block chain holds deflated content
+    private int version; // volume-wide write generation of the current content
 
     public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException{
+        this(filename, filesize, firstblock, filesize, false);
+    }
+
+    public FEntry(String filename, short filesize, short firstblock, short storedSize, boolean compressed) throws IllegalArgumentException{
         //Check filename is max 11 bytes long
         if (filename.length() > 11) {
             throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
@@ -16,6 +23,8 @@ public class FEntry {
         this.filename = filename;
         this.filesize = filesize;
         this.firstBlock = firstblock;
+        this.storedSize = storedSize;
+        this.compressed = compressed;
     }
 
     // Getters and Setters
@@ -48,4 +57,31 @@ public class FEntry {
     public void setFirstBlock(short firstBlock) {
         this.firstBlock = firstBlock;
     }
+
+    public short getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(short storedSize) {
+        if (storedSize < 0) {
+            throw new IllegalArgumentException("Stored size cannot be negative.");
+        }
+        this.storedSize = storedSize;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
 }
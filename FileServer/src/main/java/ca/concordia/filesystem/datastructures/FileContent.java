@@ -0,0 +1,24 @@
+package ca.concordia.filesystem.datastructures;
+
+public class FileContent {
+
+    private final int version;
+    private final byte[] data; // null when the caller's version is still current
+
+    public FileContent(int version, byte[] data) {
+        this.version = version;
+        this.data = data;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean isModified() {
+        return data != null;
+    }
+}
@@ -0,0 +1,184 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Reads newline-terminated commands from a client into one reused byte buffer and splits them in place.
+// Tokens are offsets into that buffer; nothing is decoded into a String unless a caller asks for it.
+class CommandParser {
+
+    enum Command { CREATE, LIST, DELETE, WRITE, READ, COPY, SNAPSHOT, DEFRAG, FRAGSTATS, QUIT, UNKNOWN }
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final byte[][] COMMAND_NAMES = new byte[COMMANDS.length][];
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            COMMAND_NAMES[i] = COMMANDS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final int MAX_TOKENS = 8; // later words stay reachable through afterToken
+    private static final int NAME_CACHE_SIZE = 4;
+
+    private final InputStream in;
+    private final byte[] input = new byte[8192];
+    private int inputPos;
+    private int inputLimit;
+
+    private byte[] line = new byte[256];
+    private int length;
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private int tokenCount;
+
+    // recently decoded tokens, so repeated commands on the same file reuse one String
+    private final byte[][] cachedBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+    private int cacheNext;
+
+    CommandParser(InputStream in) {
+        this.in = in;
+    }
+
+    // Reads the next line, without its line terminator. Returns false once the stream is exhausted.
+    boolean next() throws IOException {
+        length = 0;
+        boolean any = false;
+        while (true) {
+            if (inputPos == inputLimit) {
+                inputLimit = in.read(input, 0, input.length);
+                inputPos = 0;
+                if (inputLimit <= 0) {
+                    inputLimit = 0;
+                    if (!any) return false;
+                    break;
+                }
+            }
+            any = true;
+            byte b = input[inputPos++];
+            if (b == '\n') break;
+            if (length == line.length) {
+                byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = b;
+        }
+        if (length > 0 && line[length - 1] == '\r') length--;
+        tokenize();
+        return true;
+    }
+
+    private void tokenize() {
+        tokenCount = 0;
+        int i = 0;
+        while (i < length && tokenCount < MAX_TOKENS) {
+            while (i < length && isSpace(line[i])) i++;
+            if (i == length) break;
+            starts[tokenCount] = i;
+            while (i < length && !isSpace(line[i])) i++;
+            ends[tokenCount++] = i;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    byte[] line() {
+        return line;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int tokenCount() {
+        return tokenCount;
+    }
+
+    Command command() {
+        if (tokenCount == 0) return Command.UNKNOWN;
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (tokenEqualsIgnoreCase(0, COMMAND_NAMES[i])) return COMMANDS[i];
+        }
+        return Command.UNKNOWN;
+    }
+
+    boolean tokenEqualsIgnoreCase(int token, byte[] upperAscii) {
+        int len = ends[token] - starts[token];
+        if (len != upperAscii.length) return false;
+        for (int i = 0; i < len; i++) {
+            byte b = line[starts[token] + i];
+            if (b >= 'a' && b <= 'z') b -= 'a' - 'A';
+            if (b != upperAscii[i]) return false;
+        }
+        return true;
+    }
+
+    int parseInt(int token) {
+        int i = starts[token];
+        int end = ends[token];
+        boolean negative = i < end && line[i] == '-';
+        if (negative) i++;
+        if (i == end || end - i > 10) throw new NumberFormatException("Invalid number");
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Invalid number");
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw new NumberFormatException("Invalid number");
+        return (int) value;
+    }
+
+    String token(int token) {
+        return decode(starts[token], ends[token]);
+    }
+
+    // End of the line with trailing whitespace trimmed.
+    int restEnd() {
+        int end = length;
+        while (end > 0 && (line[end - 1] & 0xFF) <= ' ') end--;
+        return end;
+    }
+
+    // Text after the given token, trimmed; used where a value may itself contain spaces.
+    int afterToken(int token) {
+        int i = ends[token];
+        int end = restEnd();
+        while (i < end && (line[i] & 0xFF) <= ' ') i++;
+        return i;
+    }
+
+    String decode(int start, int end) {
+        int len = end - start;
+        for (int c = 0; c < NAME_CACHE_SIZE; c++) {
+            byte[] cached = cachedBytes[c];
+            if (cached != null && cached.length == len && regionEquals(cached, start, len)) {
+                return cachedNames[c];
+            }
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(line, start, copy, 0, len);
+        String value = new String(copy, StandardCharsets.UTF_8);
+        cachedBytes[cacheNext] = copy;
+        cachedNames[cacheNext] = value;
+        cacheNext = (cacheNext + 1) % NAME_CACHE_SIZE;
+        return value;
+    }
+
+    private boolean regionEquals(byte[] cached, int start, int len) {
+        for (int i = 0; i < len; i++) {
+            if (cached[i] != line[start + i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -2,9 +2,8 @@ package ca.concordia.server;
 
 import ca.concordia.filesystem.FileSystemManager;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
@@ -13,6 +12,10 @@ import java.util.concurrent.Executors;
 
 public class FileServer {
 
+    // per-command logging allocates a String per line, so it is opt-in: -Dfs.logCommands=true
+    private static final boolean LOG_COMMANDS = Boolean.getBoolean("fs.logCommands");
+    private static final byte[] IF_NOT = "IF-NOT".getBytes(StandardCharsets.US_ASCII);
+
     private final FileSystemManager fsManager;
     private final int port;
     private final ExecutorService executor;
@@ -20,11 +23,16 @@ public class FileServer {
     public FileServer(int port, String fileSystemName, int totalSize) {
         // Use provided totalSize (no hardcoding)
         this.fsManager = new FileSystemManager(fileSystemName, totalSize);
+        System.out.println(fsManager.getStartupReport());
         this.port = port;
         // Thread pool: grows on demand, reuses idle workers
         this.executor = Executors.newCachedThreadPool();
     }
 
+    public FileSystemManager getFileSystemManager() {
+        return fsManager;
+    }
+
     public void start() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> executor.shutdownNow()));
         try (ServerSocket serverSocket = new ServerSocket(this.port)) {
@@ -47,125 +55,202 @@ public class FileServer {
         System.out.println("Thread [" + Thread.currentThread().getName() + "] handling client: " + clientSocket);
         System.out.println("Handling client: " + clientSocket);
         try (
-                BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
+                InputStream in = clientSocket.getInputStream();
+                OutputStream out = clientSocket.getOutputStream()
         ) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("Received from client: " + line);
-                String[] parts = line.split(" ");
-                if (parts.length == 0) {
-                    writer.println("ERROR: Empty command.");
-                    writer.flush();
+            // per-connection buffers: steady-state commands are parsed and answered without new garbage
+            CommandParser parser = new CommandParser(in);
+            ResponseBuffer response = new ResponseBuffer(out);
+            byte[] readBuffer = null; // allocated on the first READ
+            int[] readVersion = new int[1];
+            String[] names = null; // LIST rows, allocated on the first LIST
+            short[] sizes = null;
+            short[] firstBlocks = null;
+            int[] versions = null;
+
+            while (parser.next()) {
+                if (LOG_COMMANDS) {
+                    System.out.println("Received from client: " + parser);
+                }
+                if (parser.length() > 0 && parser.tokenCount() == 0) {
+                    response.append("ERROR: Empty command.").send();
                     continue;
                 }
-                String command = parts[0].toUpperCase();
 
-                switch (command) {
-                    case "CREATE":
-                        if (parts.length < 2) {
-                            writer.println("ERROR: Missing filename.");
-                            writer.flush();
+                switch (parser.command()) {
+                    case CREATE:
+                        if (parser.tokenCount() < 2) {
+                            response.append("ERROR: Missing filename.").send();
                             break;
                         }
                         try {
-                            fsManager.createFile(parts[1]);
-                            writer.println("SUCCESS: File '" + parts[1] + "' created.");
+                            String filename = parser.token(1);
+                            fsManager.createFile(filename);
+                            response.append("SUCCESS: File '").append(filename).append("' created.");
                         } catch (Exception e) {
-                            writer.println("ERROR: " + e.getMessage());
+                            response.append("ERROR: ").append(e.getMessage());
                         }
-                        writer.flush();
+                        response.send();
                         break;
 
-                    case "LIST":
-                        String[][] files = fsManager.listFiles();
-                        if (files.length == 0) {
-                            writer.println("No files found.");
-                        } else {
-                            StringBuilder sb = new StringBuilder();
-                            for (int i = 0; i < files.length; i++) {
-                                if (i > 0) sb.append(" | ");
-                                String[] file = files[i];
-                                sb.append("File Name: ").append(file[0])
-                                        .append(", File Size: ").append(file[1])
-                                        .append(", First Block: ").append(file[2]);
-                            }
-                            writer.println(sb);
+                    case LIST:
+                        if (names == null) {
+                            int max = fsManager.getMaxFiles();
+                            names = new String[max];
+                            sizes = new short[max];
+                            firstBlocks = new short[max];
+                            versions = new int[max];
+                        }
+                        int count = fsManager.listFiles(names, sizes, firstBlocks, versions);
+                        if (count == 0) {
+                            response.append("No files found.");
+                        }
+                        for (int i = 0; i < count; i++) {
+                            if (i > 0) response.append(" | ");
+                            response.append("File Name: ").append(names[i])
+                                    .append(", File Size: ").append(sizes[i])
+                                    .append(", First Block: ").append(firstBlocks[i])
+                                    .append(", Version: ").append(versions[i]);
+                        }
+                        response.send();
+                        break;
+
+                    case DELETE: {
+                        int from = parser.afterToken(0);
+                        int to = parser.restEnd();
+                        if (from >= to) {
+                            response.append("ERROR: Missing filename").send();
+                            break;
+                        }
+                        try {
+                            fsManager.deleteFile(parser.decode(from, to));
+                            response.append("File deleted");
+                        } catch (Exception e) {
+                            response.append("ERROR ").append(e.getMessage());
                         }
-                        writer.flush();
+                        response.send();
                         break;
+                    }
 
-                    case "DELETE":
-                        parts = line.split("\\s+", 2);
-                        if (parts.length < 2 || parts[1].trim().isEmpty()) {
-                            writer.println("ERROR: Missing filename");
-                            writer.flush();
+                    case WRITE: {
+                        if (parser.tokenCount() < 2) {
+                            response.append("ERROR: Missing filename or content.").send();
+                            break;
+                        }
+                        int from = parser.afterToken(1);
+                        int to = parser.restEnd();
+                        if (from >= to) {
+                            response.append("ERROR: No content provided to write.").send();
                             break;
                         }
                         try {
-                            fsManager.deleteFile(parts[1].trim());
-                            writer.println("File deleted");
+                            // content goes from the line buffer straight to the file system
+                            String filename = parser.token(1);
+                            fsManager.writeFile(filename, parser.line(), from, to - from);
+                            response.append("SUCCESS: ").append(filename).append(" is now ").append(to - from).append(" bytes.");
                         } catch (Exception e) {
-                            writer.println("ERROR " + e.getMessage());
+                            response.append("ERROR: ").append(e.getMessage());
                         }
-                        writer.flush();
+                        response.send();
                         break;
+                    }
 
-                    case "WRITE":
-                        if (parts.length < 2) {
-                            writer.println("ERROR: Missing filename or content.");
-                            writer.flush();
+                    case READ:
+                        if (parser.tokenCount() < 2) {
+                            response.append("ERROR: Missing filename.").send();
                             break;
                         }
                         try {
-                            String filename = parts[1];
-                            int idx = line.indexOf(filename);
-                            String contentStr = (idx >= 0) ? line.substring(idx + filename.length()).trim() : "";
-                            if (contentStr.isEmpty()) {
-                                writer.println("ERROR: No content provided to write.");
-                                writer.flush();
-                                break;
+                            String filename = parser.token(1);
+                            if (readBuffer == null) {
+                                readBuffer = new byte[Short.MAX_VALUE]; // file sizes are stored as shorts
                             }
-
-                            byte[] data = contentStr.getBytes(StandardCharsets.UTF_8);
-
-                            try {
-                                fsManager.writeFile(filename, data);
-                                writer.println("SUCCESS: " + filename + " is now " + data.length + " bytes.");
-                            } catch (Exception e) {
-                                writer.println("ERROR: " + e.getMessage());
+                            // READ <file> IF-NOT <version> skips the transfer when the client's copy is current;
+                            // a plain READ always transfers, and both tell the client which version it now holds
+                            boolean conditional = parser.tokenCount() >= 4 && parser.tokenEqualsIgnoreCase(2, IF_NOT);
+                            int knownVersion = conditional ? parser.parseInt(3) : FileSystemManager.NO_VERSION;
+                            int size = fsManager.readFileIfModified(filename, knownVersion, readBuffer, readVersion);
+                            if (size < 0) {
+                                response.append("NOT MODIFIED: VERSION: ").append(readVersion[0]);
+                            } else {
+                                response.append("SUCCESS: READ ").append(size)
+                                        .append(" bytes. VERSION: ").append(readVersion[0])
+                                        .append(" CONTENT: ").append(readBuffer, 0, size);
                             }
-
-                        } finally {
-                            writer.flush();
+                        } catch (NumberFormatException e) {
+                            response.append("ERROR: Invalid version.");
+                        } catch (Exception e) {
+                            response.append("ERROR: ").append(e.getMessage());
                         }
+                        response.send();
                         break;
 
-                    case "READ":
-                        if (parts.length < 2) {
-                            writer.println("ERROR: Missing filename.");
-                            writer.flush();
+                    case COPY:
+                        if (parser.tokenCount() < 3) {
+                            response.append("ERROR: Missing source or target filename.").send();
                             break;
                         }
                         try {
-                            String filename = parts[1];
-                            byte[] data = fsManager.readFile(filename);
-                            String content = new String(data, StandardCharsets.UTF_8);
-                            writer.println("SUCCESS: READ " + data.length + " bytes. CONTENT: " + content);
+                            String source = parser.token(1);
+                            String target = parser.token(2);
+                            fsManager.copyFile(source, target);
+                            response.append("SUCCESS: File '").append(source).append("' copied to '").append(target).append("'.");
+                        } catch (Exception e) {
+                            response.append("ERROR: ").append(e.getMessage());
+                        }
+                        response.send();
+                        break;
+
+                    case SNAPSHOT:
+                        // SNAPSHOT CREATE|DELETE <name>, SNAPSHOT LIST [name], SNAPSHOT READ <name> <file>
+                        int words = parser.tokenCount();
+                        String action = (words > 1) ? parser.token(1).toUpperCase() : "";
+                        try {
+                            if (action.equals("LIST") && words == 2) {
+                                String[] snapshots = fsManager.listSnapshots();
+                                response.append(snapshots.length == 0 ? "No snapshots found." : "Snapshots: " + String.join(", ", snapshots));
+                            } else if (words < 3) {
+                                response.append("ERROR: Usage: SNAPSHOT CREATE|DELETE|LIST|READ <name> [file].");
+                            } else if (action.equals("CREATE")) {
+                                fsManager.createSnapshot(parser.token(2));
+                                response.append("SUCCESS: Snapshot '").append(parser.token(2)).append("' created.");
+                            } else if (action.equals("DELETE")) {
+                                fsManager.deleteSnapshot(parser.token(2));
+                                response.append("SUCCESS: Snapshot '").append(parser.token(2)).append("' deleted.");
+                            } else if (action.equals("LIST")) {
+                                response.append(formatFileList(fsManager.listSnapshotFiles(parser.token(2))));
+                            } else if (action.equals("READ") && words >= 4) {
+                                byte[] data = fsManager.readSnapshotFile(parser.token(2), parser.token(3));
+                                response.append("SUCCESS: READ ").append(data.length).append(" bytes. CONTENT: ").append(data);
+                            } else {
+                                response.append("ERROR: Usage: SNAPSHOT CREATE|DELETE|LIST|READ <name> [file].");
+                            }
                         } catch (Exception e) {
-                            writer.println("ERROR: " + e.getMessage());
+                            response.append("ERROR: ").append(e.getMessage());
                         }
-                        writer.flush();
+                        response.send();
                         break;
 
-                    case "QUIT":
-                        writer.println("SUCCESS: Disconnecting.");
-                        writer.flush();
+                    case DEFRAG:
+                        try {
+                            int moved = fsManager.compactAll();
+                            response.append("SUCCESS: Relocated ").append(moved).append(" files. ").append(fsManager.fragmentationReport());
+                        } catch (Exception e) {
+                            response.append("ERROR: ").append(e.getMessage());
+                        }
+                        response.send();
+                        break;
+
+                    case FRAGSTATS:
+                        response.append(fsManager.fragmentationReport()).send();
+                        break;
+
+                    case QUIT:
+                        response.append("SUCCESS: Disconnecting.").send();
                         return;
 
                     default:
-                        writer.println("ERROR: Unknown command.");
-                        writer.flush();
+                        response.append("ERROR: Unknown command.").send();
                         break;
                 }
             }
@@ -175,5 +260,20 @@ public class FileServer {
             try { clientSocket.close(); } catch (Exception ignore) {}
         }
     }
-}
 
+    private static String formatFileList(String[][] files) {
+        if (files.length == 0) {
+            return "No files found.";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < files.length; i++) {
+            if (i > 0) sb.append(" | ");
+            String[] file = files[i];
+            sb.append("File Name: ").append(file[0])
+                    .append(", File Size: ").append(file[1])
+                    .append(", First Block: ").append(file[2])
+                    .append(", Version: ").append(file[3]);
+        }
+        return sb.toString();
+    }
+}
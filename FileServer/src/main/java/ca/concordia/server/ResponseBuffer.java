@@ -0,0 +1,82 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Builds one response line in a reused byte array and sends it with a single write.
+class ResponseBuffer {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private byte[] buf = new byte[512];
+    private int length;
+
+    ResponseBuffer(OutputStream out) {
+        this.out = out;
+    }
+
+    ResponseBuffer append(String s) {
+        if (s == null) s = "null";
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // non-ASCII text is rare here (file names, error messages); encode the remainder properly
+                return append(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buf[length++] = (byte) c;
+        }
+        return this;
+    }
+
+    ResponseBuffer append(int value) {
+        if (value == Integer.MIN_VALUE) return append(Integer.toString(value));
+        ensure(11);
+        if (value < 0) {
+            buf[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buf[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // digits were produced least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    ResponseBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    ResponseBuffer append(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, length, len);
+        length += len;
+        return this;
+    }
+
+    // Terminates the line, writes it out and resets the buffer for the next response.
+    void send() throws IOException {
+        append(LINE_SEPARATOR);
+        out.write(buf, 0, length);
+        out.flush();
+        length = 0;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length * 2, length + extra)];
+            System.arraycopy(buf, 0, grown, 0, length);
+            buf = grown;
+        }
+    }
+}